@@ -1,9 +1,9 @@
 package io.appflags.sdk;
 
-import io.appflags.protos.BucketingResult;
-import io.appflags.protos.ComputedFlag;
 import io.appflags.protos.User;
 import io.appflags.sdk.exceptions.AppFlagsException;
+import io.appflags.sdk.jfr.HandlerDispatchEvent;
+import io.appflags.sdk.jfr.JfrSupport;
 import io.appflags.sdk.managers.bucketing.BucketingManager;
 import io.appflags.sdk.managers.configuration.ConfigurationUpdateCallback;
 import io.appflags.sdk.models.ConfigurationChangedHandler;
@@ -12,16 +12,22 @@ import io.appflags.sdk.models.AppFlagsFlag;
 import io.appflags.sdk.models.AppFlagsUser;
 import io.appflags.sdk.options.AppFlagsClientOptions;
 import io.appflags.sdk.options.ConfigurationOptions;
+import io.appflags.sdk.utils.LazyFlagMap;
 import io.appflags.sdk.utils.ProtobufConverter;
 import lombok.NonNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class AppFlagsClient {
 
@@ -30,24 +36,56 @@ public class AppFlagsClient {
     private final ConfigurationManager configurationManager;
     private final BucketingManager bucketingManager;
 
-    private final ExecutorService callbackThreadPool = Executors.newCachedThreadPool();
-    private final List<ConfigurationChangedHandler> changeHandlers = new ArrayList<>();
+    private final Executor callbackExecutor;
+    @Nullable
+    private final ExecutorService ownedCallbackThreadPool;
+    private final List<ConfigurationChangedHandler> changeHandlers = new CopyOnWriteArrayList<>();
+
+    @Nullable
+    private final Long evaluationTimeoutMs;
+    private final int lastKnownFlagsCacheSize;
+    // last flags computed per user key, returned when a time bounded evaluation can't acquire the engine.
+    // Access ordered, so the least recently evaluated user is evicted, and guarded by lastKnownFlagsLock since reads reorder it
+    private final Map<String, Map<String, AppFlagsFlag>> lastKnownFlags;
+    private final ReentrantLock lastKnownFlagsLock = new ReentrantLock();
+    private final AtomicLong evaluationTimeouts = new AtomicLong();
 
     public AppFlagsClient(final String sdkKey) {
         this(sdkKey, AppFlagsClientOptions.builder().build());
     }
 
     public AppFlagsClient(final String sdkKey, final AppFlagsClientOptions options) {
+        this(sdkKey, options, new BucketingManager());
+    }
+
+    AppFlagsClient(final String sdkKey, final AppFlagsClientOptions options, final BucketingManager bucketingManager) {
 
         final String edgeUrl = options.getEdgeUrlOverride() != null ? options.getEdgeUrlOverride() : EDGE_URL;
+        evaluationTimeoutMs = options.getEvaluationTimeoutMs();
+        lastKnownFlagsCacheSize = options.getLastKnownFlagsCacheSize();
+        lastKnownFlags = new LinkedHashMap<String, Map<String, AppFlagsFlag>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Map<String, AppFlagsFlag>> eldest) {
+                return size() > lastKnownFlagsCacheSize;
+            }
+        };
+
+        if (options.getCallbackExecutor() != null) {
+            callbackExecutor = options.getCallbackExecutor();
+            ownedCallbackThreadPool = null;
+        } else {
+            ownedCallbackThreadPool = Executors.newCachedThreadPool();
+            callbackExecutor = ownedCallbackThreadPool;
+        }
 
         final ConfigurationOptions configurationOptions =
             options.getConfigurationOptions() != null ? options.getConfigurationOptions() :
             ConfigurationOptions.builder().build();
         final ConfigurationUpdateCallback configurationUpdateCallback = this::handleConfigurationUpdate;
-        configurationManager = new ConfigurationManager(sdkKey, edgeUrl, configurationUpdateCallback, configurationOptions);
+        configurationManager = new ConfigurationManager(sdkKey, edgeUrl, configurationUpdateCallback, configurationOptions,
+            options.getScheduler(), options.getReloadExecutor(), options.getHttpClient());
 
-        bucketingManager = new BucketingManager();
+        this.bucketingManager = bucketingManager;
         bucketingManager.setConfiguration(configurationManager.getConfiguration());
     }
 
@@ -75,6 +113,30 @@ public class AppFlagsClient {
         return flag.getValue();
     }
 
+    public Boolean getBooleanVariation(@NonNull final String flagKey, @NonNull final AppFlagsUser user, @Nullable final Boolean defaultValue, final long timeoutMs) {
+        final AppFlagsFlag<Boolean> flag = getBooleanFlag(flagKey, user, timeoutMs);
+        if (flag == null) {
+            return defaultValue;
+        }
+        return flag.getValue();
+    }
+
+    public Double getNumberVariation(@NonNull final String flagKey, @NonNull final AppFlagsUser user, @Nullable final Double defaultValue, final long timeoutMs) {
+        final AppFlagsFlag<Double> flag = getNumberFlag(flagKey, user, timeoutMs);
+        if (flag == null) {
+            return defaultValue;
+        }
+        return flag.getValue();
+    }
+
+    public String getStringVariation(@NonNull final String flagKey, @NonNull final AppFlagsUser user, @Nullable final String defaultValue, final long timeoutMs) {
+        final AppFlagsFlag<String> flag = getStringFlag(flagKey, user, timeoutMs);
+        if (flag == null) {
+            return defaultValue;
+        }
+        return flag.getValue();
+    }
+
     public AppFlagsFlag<Boolean> getBooleanFlag(@NonNull final String flagKey, @NonNull final AppFlagsUser user) {
         return getFlag(flagKey, user, AppFlagsFlag.FlagType.BOOLEAN);
     }
@@ -87,8 +149,23 @@ public class AppFlagsClient {
         return getFlag(flagKey, user, AppFlagsFlag.FlagType.STRING);
     }
 
+    public AppFlagsFlag<Boolean> getBooleanFlag(@NonNull final String flagKey, @NonNull final AppFlagsUser user, final long timeoutMs) {
+        return getFlag(flagKey, getAllFlags(user, timeoutMs), AppFlagsFlag.FlagType.BOOLEAN);
+    }
+
+    public AppFlagsFlag<Double> getNumberFlag(@NonNull final String flagKey, @NonNull final AppFlagsUser user, final long timeoutMs) {
+        return getFlag(flagKey, getAllFlags(user, timeoutMs), AppFlagsFlag.FlagType.NUMBER);
+    }
+
+    public AppFlagsFlag<String> getStringFlag(@NonNull final String flagKey, @NonNull final AppFlagsUser user, final long timeoutMs) {
+        return getFlag(flagKey, getAllFlags(user, timeoutMs), AppFlagsFlag.FlagType.STRING);
+    }
+
     private <T> AppFlagsFlag<T> getFlag(@NonNull final String flagKey, @NonNull final AppFlagsUser user, final AppFlagsFlag.FlagType flagType) {
-        final Map<String, AppFlagsFlag> flags = getAllFlags(user);
+        return getFlag(flagKey, getAllFlags(user), flagType);
+    }
+
+    private <T> AppFlagsFlag<T> getFlag(@NonNull final String flagKey, final Map<String, AppFlagsFlag> flags, final AppFlagsFlag.FlagType flagType) {
         final AppFlagsFlag flag = flags.get(flagKey);
         if (flag == null) {
             return null;
@@ -101,15 +178,64 @@ public class AppFlagsClient {
     }
 
     public Map<String, AppFlagsFlag> getAllFlags(@NonNull final AppFlagsUser user) {
+        if (evaluationTimeoutMs != null) {
+            return getAllFlags(user, evaluationTimeoutMs);
+        }
         final User protoUser = ProtobufConverter.toProtoUser(user);
-        final BucketingResult bucketingResult =  bucketingManager.bucket(protoUser);
-        final Map<String, AppFlagsFlag> flags = new HashMap<>();
-        for (ComputedFlag computedFlag : bucketingResult.getFlagsList()) {
-            flags.put(computedFlag.getKey(), ProtobufConverter.fromComputedFlag(computedFlag));
+        final byte[] bucketingResult = bucketingManager.bucketToBytes(protoUser);
+        // flags are decoded as they are read, so looking up a single flag does not decode all of them
+        return new LazyFlagMap(bucketingResult);
+    }
+
+    /**
+     * Evaluates all flags for the user, waiting at most timeoutMs for the bucketing engine. On timeout the flags last
+     * computed for the user by a time bounded evaluation are returned, or an empty map if there are none.
+     */
+    public Map<String, AppFlagsFlag> getAllFlags(@NonNull final AppFlagsUser user, final long timeoutMs) {
+        final User protoUser = ProtobufConverter.toProtoUser(user);
+        final byte[] bucketingResult = bucketingManager.bucketToBytes(protoUser, timeoutMs, TimeUnit.MILLISECONDS);
+        if (bucketingResult == null) {
+            evaluationTimeouts.incrementAndGet();
+            final Map<String, AppFlagsFlag> flags = recallFlags(user.getKey());
+            return flags != null ? flags : Collections.emptyMap();
         }
+        final Map<String, AppFlagsFlag> flags = new LazyFlagMap(bucketingResult);
+        rememberFlags(user.getKey(), flags);
         return flags;
     }
 
+    // the cache lock is only tried, a time bounded evaluation must not wait on it either. Under contention a result
+    // isn't remembered or recalled, the same outcome as an evicted user
+    private void rememberFlags(final String userKey, final Map<String, AppFlagsFlag> flags) {
+        if (lastKnownFlagsCacheSize <= 0 || !lastKnownFlagsLock.tryLock()) {
+            return;
+        }
+        try {
+            lastKnownFlags.put(userKey, flags);
+        } finally {
+            lastKnownFlagsLock.unlock();
+        }
+    }
+
+    @Nullable
+    private Map<String, AppFlagsFlag> recallFlags(final String userKey) {
+        if (!lastKnownFlagsLock.tryLock()) {
+            return null;
+        }
+        try {
+            return lastKnownFlags.get(userKey);
+        } finally {
+            lastKnownFlagsLock.unlock();
+        }
+    }
+
+    /**
+     * Number of time bounded evaluations that could not acquire the bucketing engine within their timeout.
+     */
+    public long getEvaluationTimeoutCount() {
+        return evaluationTimeouts.get();
+    }
+
     private void handleConfigurationUpdate() {
         this.bucketingManager.setConfiguration(this.configurationManager.getConfiguration());
         invokeConfigurationChangeHandlers();
@@ -121,7 +247,19 @@ public class AppFlagsClient {
 
     private void invokeConfigurationChangeHandlers() {
         for (final ConfigurationChangedHandler handler : changeHandlers) {
-            callbackThreadPool.execute(handler::onConfigurationChange);
+            callbackExecutor.execute(() -> dispatchConfigurationChange(handler));
+        }
+    }
+
+    private static void dispatchConfigurationChange(final ConfigurationChangedHandler handler) {
+        final HandlerDispatchEvent event = JfrSupport.AVAILABLE ? new HandlerDispatchEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        handler.onConfigurationChange();
+        if (event != null && event.shouldCommit()) {
+            event.handlerClass = handler.getClass().getName();
+            event.commit();
         }
     }
 
@@ -129,6 +267,8 @@ public class AppFlagsClient {
         if (configurationManager != null) {
             configurationManager.close();
         }
-        callbackThreadPool.shutdown();
+        if (ownedCallbackThreadPool != null) {
+            ownedCallbackThreadPool.shutdown();
+        }
     }
 }
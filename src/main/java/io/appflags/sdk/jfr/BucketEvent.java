@@ -0,0 +1,31 @@
+package io.appflags.sdk.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+@Name("io.appflags.Bucket")
+@Label("Bucket")
+@Category("AppFlags")
+@Description("Flag evaluation for one user in the bucketing engine")
+@Threshold("1 ms")
+@StackTrace(false)
+public class BucketEvent extends jdk.jfr.Event {
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lockWait;
+
+    @Label("Result Size")
+    @DataAmount
+    public int resultSize;
+
+    @Label("Timed Out")
+    @Description("The engine could not be acquired within the evaluation timeout")
+    public boolean timedOut;
+}
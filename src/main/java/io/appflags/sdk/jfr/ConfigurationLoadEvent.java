@@ -0,0 +1,35 @@
+package io.appflags.sdk.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+@Name("io.appflags.ConfigurationLoad")
+@Label("Configuration Load")
+@Category("AppFlags")
+@Description("Configuration fetched from the AppFlags edge")
+@Threshold("0 ms")
+@StackTrace(false)
+public class ConfigurationLoadEvent extends jdk.jfr.Event {
+
+    @Label("Load Type")
+    public String loadType;
+
+    @Label("Success")
+    @Description("The configuration was fetched and decoded")
+    public boolean success;
+
+    @Label("HTTP Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    public long httpLatency;
+
+    @Label("Response Size")
+    @Description("Bytes read from the response body, zero if the request failed before a body was read")
+    @DataAmount
+    public long responseSize;
+}
@@ -0,0 +1,20 @@
+package io.appflags.sdk.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("io.appflags.HandlerDispatch")
+@Label("Configuration Changed Handler")
+@Category("AppFlags")
+@Description("ConfigurationChangedHandler invocation after a configuration update")
+@Threshold("10 ms")
+@StackTrace(false)
+public class HandlerDispatchEvent extends jdk.jfr.Event {
+
+    @Label("Handler Class")
+    public String handlerClass;
+}
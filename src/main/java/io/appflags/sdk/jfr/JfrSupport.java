@@ -0,0 +1,22 @@
+package io.appflags.sdk.jfr;
+
+/**
+ * Flight Recorder events are only created when the jdk.jfr API exists, older Java 8 runtimes and some non-HotSpot
+ * JVMs don't provide it. Callers hold events in locals that stay null when unavailable, so the event classes are
+ * never loaded on those runtimes.
+ */
+public class JfrSupport {
+
+    public static final boolean AVAILABLE = isAvailable();
+
+    private JfrSupport() {}
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.appflags.sdk.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("io.appflags.RealtimeReconnect")
+@Label("Realtime Reconnect")
+@Category("AppFlags")
+@Description("Realtime SSE connection lost and reopened")
+@StackTrace(false)
+public class RealtimeReconnectEvent extends jdk.jfr.Event {
+
+    @Label("Reason")
+    public String reason;
+}
@@ -0,0 +1,27 @@
+package io.appflags.sdk.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+@Name("io.appflags.SetConfiguration")
+@Label("Set Configuration")
+@Category("AppFlags")
+@Description("Configuration swap in the bucketing engine, evaluations wait while it runs")
+@Threshold("0 ms")
+@StackTrace(false)
+public class SetConfigurationEvent extends jdk.jfr.Event {
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lockWait;
+
+    @Label("Configuration Size")
+    @DataAmount
+    public int configurationSize;
+}
@@ -5,8 +5,12 @@ import io.appflags.protos.BucketingResult;
 import io.appflags.protos.Configuration;
 import io.appflags.protos.User;
 import io.appflags.sdk.exceptions.AppFlagsException;
+import io.appflags.sdk.jfr.BucketEvent;
+import io.appflags.sdk.jfr.JfrSupport;
+import io.appflags.sdk.jfr.SetConfigurationEvent;
 import io.github.kawamuray.wasmtime.*;
 import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +20,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static io.github.kawamuray.wasmtime.WasmValType.I32;
 
@@ -27,6 +33,8 @@ public class BucketingManager {
     private static final int UINT8_ARRAY_CLASS_ID = 8;
     private static final int UINT8_ARRAY_LENGTH = 12;
 
+    private static final long NO_TIMEOUT = -1;
+
     private final Store<Void> store;
     private final Engine engine;
     private final Linker linker;
@@ -34,6 +42,9 @@ public class BucketingManager {
     private final Memory memory;
     private final List<Integer> pinnedPointers = new ArrayList<>();
 
+    // a j.u.c. lock rather than a monitor, waiting virtual threads unmount instead of pinning their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
     public BucketingManager() {
         store = Store.withoutData();
         engine = store.engine();
@@ -66,30 +77,40 @@ public class BucketingManager {
         linker.define(store, "env", "console.log", Extern.fromFunc(consoleLogFn));
     }
 
-    public synchronized void setConfiguration(final Configuration config) {
-        unpinAll();
+    public void setConfiguration(final Configuration config) {
+        final SetConfigurationEvent event = JfrSupport.AVAILABLE ? new SetConfigurationEvent() : null;
+        // the clock is only read while a recording has the event enabled
+        final boolean recording = event != null && event.isEnabled();
+        if (event != null) {
+            event.begin();
+        }
 
         final byte[] configBytes = config.toByteArray();
-        final int configPointer = writeUint8Array(configBytes);
-
-        final Func setConfigFn = linker.get(store, "", "setConfiguration").get().func();
-        final WasmFunctions.Consumer1<Integer> setConfig = WasmFunctions.consumer(
-            store, setConfigFn, WasmValType.I32);
-        setConfig.accept(configPointer);
-    }
+        final long lockRequested = recording ? System.nanoTime() : 0;
+        lock.lock();
+        final long lockWait = recording ? System.nanoTime() - lockRequested : 0;
+        try {
+            unpinAll();
 
-    public synchronized BucketingResult bucket(final User user) {
-        unpinAll();
+            final int configPointer = writeUint8Array(configBytes);
 
-        final byte[] userBytes = user.toByteArray();
-        final int userPointer = writeUint8Array(userBytes);
+            final Func setConfigFn = linker.get(store, "", "setConfiguration").get().func();
+            final WasmFunctions.Consumer1<Integer> setConfig = WasmFunctions.consumer(
+                store, setConfigFn, WasmValType.I32);
+            setConfig.accept(configPointer);
+        } finally {
+            lock.unlock();
+        }
 
-        final Func bucketFn = linker.get(store, "", "bucket").get().func();
-        final WasmFunctions.Function1<Integer, Integer> bucket = WasmFunctions.func(
-            store, bucketFn, WasmValType.I32, WasmValType.I32);
+        if (event != null && event.shouldCommit()) {
+            event.lockWait = lockWait;
+            event.configurationSize = configBytes.length;
+            event.commit();
+        }
+    }
 
-        final int resultPointer = bucket.call(userPointer);
-        final byte[] resultBytes = readUint8Array(resultPointer);
+    public BucketingResult bucket(final User user) {
+        final byte[] resultBytes = bucketToBytes(user);
         try {
             return BucketingResult.parseFrom(resultBytes);
         } catch (InvalidProtocolBufferException e) {
@@ -97,6 +118,75 @@ public class BucketingManager {
         }
     }
 
+    // returns the serialized BucketingResult without decoding it
+    public byte[] bucketToBytes(final User user) {
+        return bucketToBytes(user, NO_TIMEOUT);
+    }
+
+    // returns null if the engine could not be acquired within the timeout, e.g. while a large configuration is being set.
+    // The timeout only bounds the wait for the engine, a started WASM call always runs to completion.
+    @Nullable
+    public byte[] bucketToBytes(final User user, final long timeout, final TimeUnit unit) {
+        return bucketToBytes(user, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    @Nullable
+    private byte[] bucketToBytes(final User user, final long timeoutNanos) {
+        final BucketEvent event = JfrSupport.AVAILABLE ? new BucketEvent() : null;
+        // the clock is only read while a recording has the event enabled, this runs on every evaluation
+        final boolean recording = event != null && event.isEnabled();
+        if (event != null) {
+            event.begin();
+        }
+
+        final byte[] userBytes = user.toByteArray();
+        final long lockRequested = recording ? System.nanoTime() : 0;
+        if (!acquireLock(timeoutNanos)) {
+            if (event != null && event.shouldCommit()) {
+                event.lockWait = System.nanoTime() - lockRequested;
+                event.timedOut = true;
+                event.commit();
+            }
+            return null;
+        }
+        final long lockWait = recording ? System.nanoTime() - lockRequested : 0;
+        final byte[] resultBytes;
+        try {
+            unpinAll();
+
+            final int userPointer = writeUint8Array(userBytes);
+
+            final Func bucketFn = linker.get(store, "", "bucket").get().func();
+            final WasmFunctions.Function1<Integer, Integer> bucket = WasmFunctions.func(
+                store, bucketFn, WasmValType.I32, WasmValType.I32);
+
+            final int resultPointer = bucket.call(userPointer);
+            resultBytes = readUint8Array(resultPointer);
+        } finally {
+            lock.unlock();
+        }
+
+        if (event != null && event.shouldCommit()) {
+            event.lockWait = lockWait;
+            event.resultSize = resultBytes.length;
+            event.commit();
+        }
+        return resultBytes;
+    }
+
+    private boolean acquireLock(final long timeoutNanos) {
+        if (timeoutNanos == NO_TIMEOUT) {
+            lock.lock();
+            return true;
+        }
+        try {
+            return lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     private String readString(final int pointer) {
         final ByteBuffer buffer = memory.buffer(store);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -8,6 +8,8 @@ import io.appflags.protos.ConfigurationLoadMetadata;
 import io.appflags.protos.ConfigurationLoadType;
 import io.appflags.protos.PlatformData;
 import io.appflags.sdk.exceptions.AppFlagsException;
+import io.appflags.sdk.jfr.ConfigurationLoadEvent;
+import io.appflags.sdk.jfr.JfrSupport;
 import io.appflags.sdk.options.ConfigurationOptions;
 import io.appflags.sdk.utils.DaemonThreadFactory;
 import io.appflags.sdk.utils.PlatformDataUtil;
@@ -18,11 +20,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class ConfigurationManager {
@@ -33,34 +41,69 @@ public class ConfigurationManager {
     private static final JsonAdapter<GetConfigurationRequest> getConfigurationRequestJsonAdapter = MOSHI.adapter(GetConfigurationRequest.class);
     private static final JsonAdapter<GetConfigurationResponse> getConfigurationResponseJsonAdapter = MOSHI.adapter(GetConfigurationResponse.class);
 
-    private static final OkHttpClient httpClient = new OkHttpClient();
+    private static final OkHttpClient DEFAULT_HTTP_CLIENT = new OkHttpClient();
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
     private static final int ONE_MIN_MS = 60000;
     private static final int DEFAULT_POLLING_PERIOD = 10 * ONE_MIN_MS;
+    private static final int MIN_SHARED_CONFIGURATION_POLLING_PERIOD = 100;
+    private static final int DEFAULT_SHARED_CONFIGURATION_POLLING_PERIOD = 1000;
+    private static final int TAKEOVER_RETRY_DELAY_MS = 1000;
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
-    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService scheduler;
+    private final Executor reloadExecutor;
+    private final OkHttpClient httpClient;
+    // executors created by this manager, caller supplied executors are left running on close
+    private final List<ExecutorService> ownedExecutors = new ArrayList<>();
 
     private final String skdKey;
     private final String edgeUrl;
     private final ConfigurationUpdateCallback updateCallback;
+    @Nullable
+    private final Long realtimeReconnectDelayMs;
+    @Nullable
+    private final Long maxRealtimeReconnectDelayMs;
 
     private final PlatformData platformData;
 
-    private Configuration configuration;
+    private volatile Configuration configuration;
+    // serializes compare-and-swap of the configuration, reloads may run concurrently on caller supplied executors
+    private final ReentrantLock updateLock = new ReentrantLock();
     private ConfigurationUpdateListener configurationUpdateListener;
+    @Nullable
+    private SharedConfigurationFile sharedConfigurationFile;
+    @Nullable
+    private ScheduledFuture<?> sharedConfigurationPoll;
+    // only touched by the shared configuration poll, which the scheduler never runs concurrently with itself
+    private int takeoverFailures;
+    private long nextTakeoverAttemptMs;
 
     public ConfigurationManager(String skdKey, String edgeUrl, ConfigurationUpdateCallback updateCallback, ConfigurationOptions options) {
+        this(skdKey, edgeUrl, updateCallback, options, null, null, null);
+    }
+
+    public ConfigurationManager(String skdKey, String edgeUrl, ConfigurationUpdateCallback updateCallback, ConfigurationOptions options,
+                                @Nullable ScheduledExecutorService scheduler, @Nullable Executor reloadExecutor, @Nullable OkHttpClient httpClient) {
         this.skdKey = skdKey;
         this.edgeUrl = edgeUrl;
         this.updateCallback = updateCallback;
+        this.realtimeReconnectDelayMs = options.getRealtimeReconnectDelayMs();
+        this.maxRealtimeReconnectDelayMs = options.getMaxRealtimeReconnectDelayMs();
         this.platformData = PlatformDataUtil.getPlatformData();
+        this.httpClient = httpClient != null ? httpClient : DEFAULT_HTTP_CLIENT;
 
-        try {
-            this.configuration = loadConfiguration(ConfigurationLoadType.INITIAL_LOAD);
-        } catch (IOException e) {
-            throw new AppFlagsException("Error loading AppFlags configuration", e);
+        if (scheduler != null) {
+            this.scheduler = scheduler;
+        } else {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+            ownedExecutors.add(this.scheduler);
+        }
+        if (reloadExecutor != null) {
+            this.reloadExecutor = reloadExecutor;
+        } else {
+            final ExecutorService ownedReloadExecutor = Executors.newSingleThreadExecutor();
+            ownedExecutors.add(ownedReloadExecutor);
+            this.reloadExecutor = ownedReloadExecutor;
         }
 
         int pollingPeriod = DEFAULT_POLLING_PERIOD;
@@ -68,15 +111,57 @@ public class ConfigurationManager {
             pollingPeriod = Math.max(ONE_MIN_MS, options.getPollingPeriodMs());
             logger.info("Configuration polling period set to " + pollingPeriod + " ms.");
         }
-        pollForConfigurationUpdates(pollingPeriod);
 
-        if (this.configuration.hasEnvironmentId()) {
+        try {
+            initialize(options, pollingPeriod);
+        } catch (RuntimeException e) {
+            // release the shared file's writer lock and the owned threads, a lock held by an unreachable instance
+            // would leave every process on the host following a file nobody writes
+            close();
+            throw e;
+        }
+    }
+
+    private void initialize(final ConfigurationOptions options, final int pollingPeriod) {
+        if (options.getSharedConfigurationPath() != null) {
             try {
-                listenForConfigurationUpdates(this.configuration.getEnvironmentId());
+                sharedConfigurationFile = new SharedConfigurationFile(options.getSharedConfigurationPath(), SharedConfigurationFile.identityOf(skdKey));
+                if (!sharedConfigurationFile.tryBecomeWriter()) {
+                    int sharedPollingPeriod = DEFAULT_SHARED_CONFIGURATION_POLLING_PERIOD;
+                    if (options.getSharedConfigurationPollingPeriodMs() != null) {
+                        sharedPollingPeriod = Math.max(MIN_SHARED_CONFIGURATION_POLLING_PERIOD, options.getSharedConfigurationPollingPeriodMs());
+                    }
+                    final Configuration sharedConfiguration = readSharedConfiguration();
+                    // the writer may not have written a configuration yet
+                    this.configuration = sharedConfiguration != null ? sharedConfiguration : loadInitialConfiguration();
+                    followSharedConfiguration(sharedPollingPeriod, pollingPeriod);
+                    return;
+                }
+                logger.info("Writing configuration to shared configuration file " + options.getSharedConfigurationPath());
             } catch (IOException e) {
-                logger.error("Error listening for realtime updates, no realtime updates will occur.", e);
+                throw new AppFlagsException("Error opening shared configuration file " + options.getSharedConfigurationPath(), e);
             }
         }
+
+        this.configuration = loadInitialConfiguration();
+        writeSharedConfiguration(this.configuration);
+        startNetworkUpdates(pollingPeriod);
+    }
+
+    private Configuration loadInitialConfiguration() {
+        try {
+            return loadConfiguration(ConfigurationLoadType.INITIAL_LOAD);
+        } catch (IOException e) {
+            throw new AppFlagsException("Error loading AppFlags configuration", e);
+        }
+    }
+
+    private void startNetworkUpdates(final int pollingPeriodMs) {
+        pollForConfigurationUpdates(pollingPeriodMs);
+
+        if (this.configuration.hasEnvironmentId()) {
+            listenForConfigurationUpdates(this.configuration.getEnvironmentId());
+        }
     }
 
     public Configuration getConfiguration() {
@@ -91,33 +176,58 @@ public class ConfigurationManager {
     }
 
     private Configuration loadConfiguration(@NonNull ConfigurationLoadType loadType, @Nullable Double getUpdateAt) throws IOException {
-        final ConfigurationLoadMetadata configurationLoadMetadata = ConfigurationLoadMetadata.newBuilder()
-            .setLoadType(loadType)
-            .setPlatformData(this.platformData)
-            .build();
-        final String encodedMetadata = Base64.getEncoder().encodeToString(configurationLoadMetadata.toByteArray());
-
-        final GetConfigurationRequest getConfigurationBody = new GetConfigurationRequest(encodedMetadata);
-        final String requestBodyJson = getConfigurationRequestJsonAdapter.toJson(getConfigurationBody);
-
-        String url = this.edgeUrl + "/configuration/v1/config";
-        if (getUpdateAt != null) {
-            url += "?getUpdateAt=" + getUpdateAt;
+        final ConfigurationLoadEvent event = JfrSupport.AVAILABLE ? new ConfigurationLoadEvent() : null;
+        final boolean recording = event != null && event.isEnabled();
+        if (event != null) {
+            event.begin();
         }
 
-        final RequestBody body = RequestBody.create(requestBodyJson, JSON);
-        final Request request = new Request.Builder()
-            .url(url)
-            .addHeader("Authorization", "Bearer: " + this.skdKey)
-            .post(body)
-            .build();
-        final Response response = httpClient.newCall(request).execute();
-        final String responseBodyJson = response.body().string();
+        boolean success = false;
+        long httpLatency = 0;
+        long responseSize = 0;
+        try {
+            final ConfigurationLoadMetadata configurationLoadMetadata = ConfigurationLoadMetadata.newBuilder()
+                .setLoadType(loadType)
+                .setPlatformData(this.platformData)
+                .build();
+            final String encodedMetadata = Base64.getEncoder().encodeToString(configurationLoadMetadata.toByteArray());
+
+            final GetConfigurationRequest getConfigurationBody = new GetConfigurationRequest(encodedMetadata);
+            final String requestBodyJson = getConfigurationRequestJsonAdapter.toJson(getConfigurationBody);
+
+            String url = this.edgeUrl + "/configuration/v1/config";
+            if (getUpdateAt != null) {
+                url += "?getUpdateAt=" + getUpdateAt;
+            }
 
-        final GetConfigurationResponse getConfigurationResponse = getConfigurationResponseJsonAdapter.fromJson(responseBodyJson);
-        final Configuration configuration = Configuration.parseFrom(Base64.getDecoder().decode(getConfigurationResponse.configuration));
-        logger.debug("Loaded configuration published at " + Timestamps.toString(configuration.getPublished()) + ", contains " + configuration.getFlagsCount() + " flags.");
-        return configuration;
+            final RequestBody body = RequestBody.create(requestBodyJson, JSON);
+            final Request request = new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer: " + this.skdKey)
+                .post(body)
+                .build();
+            final long requestStarted = recording ? System.nanoTime() : 0;
+            final byte[] responseBody;
+            try (Response response = httpClient.newCall(request).execute()) {
+                responseBody = response.body().bytes();
+            }
+            httpLatency = recording ? System.nanoTime() - requestStarted : 0;
+            responseSize = responseBody.length;
+
+            final GetConfigurationResponse getConfigurationResponse = getConfigurationResponseJsonAdapter.fromJson(new String(responseBody, StandardCharsets.UTF_8));
+            final Configuration configuration = Configuration.parseFrom(Base64.getDecoder().decode(getConfigurationResponse.configuration));
+            logger.debug("Loaded configuration published at " + Timestamps.toString(configuration.getPublished()) + ", contains " + configuration.getFlagsCount() + " flags.");
+            success = true;
+            return configuration;
+        } finally {
+            if (event != null && event.shouldCommit()) {
+                event.loadType = loadType.name();
+                event.success = success;
+                event.httpLatency = httpLatency;
+                event.responseSize = responseSize;
+                event.commit();
+            }
+        }
     }
 
     private void pollForConfigurationUpdates(final int pollingPeriodMs) {
@@ -133,6 +243,70 @@ public class ConfigurationManager {
         scheduler.schedule(runnable, pollingPeriodMs, TimeUnit.MILLISECONDS);
     }
 
+    private void followSharedConfiguration(final int sharedPollingPeriodMs, final int pollingPeriodMs) {
+        final Runnable runnable = () -> {
+            try {
+                if (sharedConfigurationFile.tryBecomeWriter()) {
+                    takeOverSharedConfiguration(pollingPeriodMs);
+                    return;
+                }
+                final Configuration sharedConfiguration = readSharedConfiguration();
+                if (sharedConfiguration != null) {
+                    updateConfigurationIfNewer(sharedConfiguration);
+                }
+            } catch (Exception e) {
+                // keep the scheduled task alive
+                logger.error("Error reading shared configuration file", e);
+            }
+        };
+        sharedConfigurationPoll = scheduler.scheduleWithFixedDelay(runnable, sharedPollingPeriodMs, sharedPollingPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // The previous writer exited and this process now loads the configuration for the host. The file poll keeps running
+    // and retries with backoff until the first load succeeds, so a failing edge never leaves the host without updates.
+    private void takeOverSharedConfiguration(final int pollingPeriodMs) {
+        if (System.currentTimeMillis() < nextTakeoverAttemptMs) {
+            return;
+        }
+        final Configuration loaded;
+        try {
+            loaded = loadConfiguration(ConfigurationLoadType.PERIODIC_RELOAD);
+        } catch (IOException | RuntimeException e) {
+            final long delay = Math.min(ONE_MIN_MS, (long) TAKEOVER_RETRY_DELAY_MS << Math.min(takeoverFailures, 16));
+            takeoverFailures++;
+            nextTakeoverAttemptMs = System.currentTimeMillis() + delay;
+            logger.warn("Error loading configuration after taking over the shared configuration file, retrying in " + delay + " ms", e);
+            return;
+        }
+
+        logger.info("Took over writing the shared configuration file");
+        if (!updateConfigurationIfNewer(loaded)) {
+            // write even an unchanged configuration, a writer that died mid-write left the header unreadable
+            writeSharedConfiguration(this.configuration);
+        }
+        sharedConfigurationPoll.cancel(false);
+        startNetworkUpdates(pollingPeriodMs);
+    }
+
+    @Nullable
+    private Configuration readSharedConfiguration() throws IOException {
+        final byte[] bytes = sharedConfigurationFile.readIfChanged();
+        return bytes != null ? Configuration.parseFrom(bytes) : null;
+    }
+
+    private void writeSharedConfiguration(final Configuration configuration) {
+        // only the writer process shares the configuration, readers got theirs from the file
+        if (sharedConfigurationFile == null || !sharedConfigurationFile.isWriter()) {
+            return;
+        }
+        try {
+            sharedConfigurationFile.write(configuration.toByteArray());
+        } catch (IOException | RuntimeException e) {
+            // the configuration is already swapped in, a failed write must not keep it from the bucketing engine
+            logger.error("Error writing shared configuration file", e);
+        }
+    }
+
     private void handleConfigurationUpdateEvent(final double published) {
         reloadExecutor.execute(() -> {
             try {
@@ -144,11 +318,13 @@ public class ConfigurationManager {
             }
         });
     }
-    private void listenForConfigurationUpdates(final String environmentId) throws IOException {
-        configurationUpdateListener = new ConfigurationUpdateListener(this.edgeUrl, environmentId, this::handleConfigurationUpdateEvent);
+    private void listenForConfigurationUpdates(final String environmentId) {
+        configurationUpdateListener = new ConfigurationUpdateListener(this.edgeUrl, environmentId, this.httpClient, this.scheduler,
+            realtimeReconnectDelayMs, maxRealtimeReconnectDelayMs, this::handleConfigurationUpdateEvent);
     }
 
-    private void updateConfigurationIfNewer(@NonNull final Configuration newConfig) {
+    // returns true if newConfig replaced the current configuration
+    private boolean updateConfigurationIfNewer(@NonNull final Configuration newConfig) {
         if (this.configuration == null) {
             throw new RuntimeException("Not initialized");
         }
@@ -158,12 +334,20 @@ public class ConfigurationManager {
         if (!newConfig.hasPublished()) {
             throw new RuntimeException("New configuration is missing `published` property");
         }
-        if (Timestamps.compare(newConfig.getPublished(), this.configuration.getPublished()) > 0) {
-            this.configuration = newConfig;
-            logger.info("Updated configuration with new configuration published at " + Timestamps.toString(this.configuration.getPublished()));
-            updateCallback.handleUpdate();
-        } else {
+        updateLock.lock();
+        try {
+            if (Timestamps.compare(newConfig.getPublished(), this.configuration.getPublished()) > 0) {
+                this.configuration = newConfig;
+                writeSharedConfiguration(newConfig);
+                logger.info("Updated configuration with new configuration published at " + Timestamps.toString(newConfig.getPublished()));
+                // still under the lock, so the bucketing engine receives configurations in publish order
+                updateCallback.handleUpdate();
+                return true;
+            }
             logger.debug("Not updating configuration because the new configuration is not newer than the current configuration");
+            return false;
+        } finally {
+            updateLock.unlock();
         }
     }
 
@@ -189,7 +373,18 @@ public class ConfigurationManager {
         if (configurationUpdateListener != null) {
             configurationUpdateListener.close();
         }
-        scheduler.shutdown();
-        reloadExecutor.shutdown();
+        if (sharedConfigurationPoll != null) {
+            sharedConfigurationPoll.cancel(false);
+        }
+        if (sharedConfigurationFile != null) {
+            try {
+                sharedConfigurationFile.close();
+            } catch (IOException e) {
+                logger.error("Error closing shared configuration file", e);
+            }
+        }
+        for (final ExecutorService executor : ownedExecutors) {
+            executor.shutdown();
+        }
     }
 }
@@ -2,7 +2,9 @@ package io.appflags.sdk.managers.configuration;
 
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
-import io.appflags.sdk.exceptions.AppFlagsException;
+import io.appflags.sdk.jfr.JfrSupport;
+import io.appflags.sdk.jfr.RealtimeReconnectEvent;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -15,8 +17,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Listens for realtime configuration updates over SSE.
+ *
+ * Connecting always happens on the scheduler, never on an OkHttp callback thread. A closed or failed stream is
+ * reopened after a jittered exponential backoff, so an edge outage doesn't turn into a reconnect storm. The backoff only
+ * resets once a stream delivers an event or stays up for {@link #MIN_STABLE_CONNECTION_MS}, so an edge that accepts
+ * and immediately drops connections keeps backing off. The SSE URL is cached and only looked up again when it expires
+ * or the stream is rejected, and a reconnect resumes from the last received event.
+ */
 public class ConfigurationUpdateListener {
 
     private static final Logger logger = LoggerFactory.getLogger(ConfigurationUpdateListener.class);
@@ -26,55 +41,138 @@ public class ConfigurationUpdateListener {
     private static final JsonAdapter<EventSourceMessage> eventSourceMessageJsonAdapter = MOSHI.adapter(EventSourceMessage.class);
     private static final JsonAdapter<ConfigurationUpdateEvent> configurationUpdateEventJsonAdapter = MOSHI.adapter(ConfigurationUpdateEvent.class);
 
-    private static final OkHttpClient httpClient = new OkHttpClient();
-    private static final OkHttpClient sseClient = new OkHttpClient.Builder()
-        .connectTimeout(0, TimeUnit.MILLISECONDS) // no timeout
-        .readTimeout(0, TimeUnit.MILLISECONDS) // no timeout
-        .writeTimeout(0, TimeUnit.MILLISECONDS) // no timeout
-        .build();
-
-    private final EventSourceListener listener = new ConfigurationEventListener();
+    private static final long DEFAULT_RECONNECT_DELAY_MS = 1000;
+    private static final long DEFAULT_MAX_RECONNECT_DELAY_MS = 60000;
+    // a stream that receives nothing, not even a heartbeat, for this long is considered dead and reopened
+    private static final long IDLE_TIMEOUT_MS = 5 * 60000;
+    private static final long SSE_URL_TTL_MS = 30 * 60000;
+    private static final long MIN_STABLE_CONNECTION_MS = 30000;
 
     private final String edgeUrl;
     private final String environmentId;
     private final UpdateEventHandler updateEventHandler;
+    private final OkHttpClient httpClient;
+    private final OkHttpClient sseClient;
+    private final ScheduledExecutorService scheduler;
+    private final long reconnectDelayMs;
+    private final long maxReconnectDelayMs;
+
+    private final AtomicInteger failedAttempts = new AtomicInteger();
+    // incremented per EventSource, callbacks of replaced EventSources are ignored
+    private final AtomicInteger connection = new AtomicInteger();
+    private volatile boolean closed;
 
     @Nullable
-    private EventSource eventSource;
+    private volatile EventSource eventSource;
+    @Nullable
+    private volatile String lastEventId;
     @Nullable
-    private String lastEventId;
+    private volatile String sseUrl;
+    private volatile long sseUrlFetchedAt;
+
+    public ConfigurationUpdateListener(final String edgeUrl, final String environmentId, final OkHttpClient httpClient,
+                                       final ScheduledExecutorService scheduler, final UpdateEventHandler updateEventHandler) {
+        this(edgeUrl, environmentId, httpClient, scheduler, null, null, updateEventHandler);
+    }
 
-    public ConfigurationUpdateListener(final String edgeUrl, final String environmentId, final UpdateEventHandler updateEventHandler) {
+    public ConfigurationUpdateListener(final String edgeUrl, final String environmentId, final OkHttpClient httpClient,
+                                       final ScheduledExecutorService scheduler, @Nullable final Long reconnectDelayMs,
+                                       @Nullable final Long maxReconnectDelayMs, final UpdateEventHandler updateEventHandler) {
         this.edgeUrl = edgeUrl;
         this.environmentId = environmentId;
         this.updateEventHandler = updateEventHandler;
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        this.reconnectDelayMs = reconnectDelayMs != null ? Math.max(1, reconnectDelayMs) : DEFAULT_RECONNECT_DELAY_MS;
+        this.maxReconnectDelayMs = maxReconnectDelayMs != null ? Math.max(this.reconnectDelayMs, maxReconnectDelayMs) : DEFAULT_MAX_RECONNECT_DELAY_MS;
+        // shares the dispatcher, connection pool and interceptors of the http client, the read timeout acts as the idle
+        // timeout and a call timeout would end the long-lived stream, so it is disabled
+        this.sseClient = httpClient.newBuilder()
+            .callTimeout(0, TimeUnit.MILLISECONDS) // no timeout
+            .readTimeout(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .writeTimeout(0, TimeUnit.MILLISECONDS) // no timeout
+            // a dropped stream goes through the backoff below, not a silent immediate retry
+            .retryOnConnectionFailure(false)
+            .build();
 
-        createNewEventSource();
+        scheduleConnect(0);
     }
 
-    private void createNewEventSource()  {
-        if (eventSource != null) {
-            eventSource.cancel();
-            logger.info("EventSource closed, creating new SSE EventSource");
+    private void scheduleConnect(final long delayMs) {
+        try {
+            scheduler.schedule(this::createNewEventSource, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Scheduler shut down, not reconnecting ConfigurationUpdaterListener EventSource");
         }
+    }
 
-        String sseUrl;
+    private void scheduleReconnect(final String reason) {
+        if (closed) {
+            return;
+        }
+        recordReconnect(reason);
+        final int attempt = failedAttempts.getAndIncrement();
+        final long backoff = Math.min(maxReconnectDelayMs, reconnectDelayMs << Math.min(attempt, 16));
+        // equal jitter, spreads out instances that lost their connection at the same moment
+        final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        logger.info("Reconnecting ConfigurationUpdaterListener EventSource in " + delay + " ms (" + reason + ")");
+        scheduleConnect(delay);
+    }
+
+    private void createNewEventSource() {
+        if (closed) {
+            return;
+        }
+        final EventSource previous = eventSource;
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        final HttpUrl url;
         try {
-            sseUrl = getSseUrl();
-        } catch (IOException e) {
-            throw new AppFlagsException("Unable to get SSE URL for new EventSource", e);
+            url = HttpUrl.parse(getCachedSseUrl());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to get SSE URL for new EventSource", e);
+            scheduleReconnect("SSE URL lookup failed");
+            return;
+        }
+        if (url == null) {
+            // look the URL up again rather than retrying one that can never connect
+            logger.warn("Invalid SSE URL for new EventSource");
+            sseUrl = null;
+            scheduleReconnect("invalid SSE URL");
+            return;
         }
 
         // Start with lastEvent if one is recorded (when restarting a connection after receiving a message)
-        if (lastEventId != null) {
-            sseUrl += "&lastEvent=" + lastEventId;
+        final HttpUrl.Builder urlBuilder = url.newBuilder();
+        final String lastEvent = lastEventId;
+        if (lastEvent != null) {
+            urlBuilder.addQueryParameter("lastEvent", lastEvent);
         }
 
         final Request request = new Request.Builder()
-            .url(sseUrl)
+            .url(urlBuilder.build())
             .build();
+        final EventSourceListener listener = new ConfigurationEventListener(connection.incrementAndGet());
         final EventSource.Factory factory = EventSources.createFactory(sseClient);
-        this.eventSource = factory.newEventSource(request, listener);
+        final EventSource created = factory.newEventSource(request, listener);
+        this.eventSource = created;
+        // close() may have run since the check above and cancelled the previous EventSource instead of this one
+        if (closed) {
+            created.cancel();
+        }
+    }
+
+    private String getCachedSseUrl() throws IOException {
+        final String cached = sseUrl;
+        if (cached != null && System.currentTimeMillis() - sseUrlFetchedAt < SSE_URL_TTL_MS) {
+            return cached;
+        }
+        final String fetched = getSseUrl();
+        sseUrl = fetched;
+        sseUrlFetchedAt = System.currentTimeMillis();
+        return fetched;
     }
 
     private String getSseUrl() throws IOException {
@@ -82,49 +180,106 @@ public class ConfigurationUpdateListener {
         final Request request = new Request.Builder()
             .url(url)
             .build();
-        final Response response = httpClient.newCall(request).execute();
-        final String responseBodyJson = response.body().string();
-        final GetSseUrlResponse getSseUrlResponse = getSseUrlResponseJsonAdapter.fromJson(responseBodyJson);
-        return getSseUrlResponse.url;
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response getting SSE URL: HTTP " + response.code());
+            }
+            final String responseBodyJson = response.body().string();
+            final GetSseUrlResponse getSseUrlResponse = getSseUrlResponseJsonAdapter.fromJson(responseBodyJson);
+            if (getSseUrlResponse == null || getSseUrlResponse.url == null) {
+                throw new IOException("SSE URL missing from response");
+            }
+            return getSseUrlResponse.url;
+        }
+    }
+
+    private static void recordReconnect(final String reason) {
+        final RealtimeReconnectEvent event = JfrSupport.AVAILABLE ? new RealtimeReconnectEvent() : null;
+        if (event != null && event.shouldCommit()) {
+            event.reason = reason;
+            event.commit();
+        }
     }
 
     public void close() {
-        if (eventSource != null) {
-            eventSource.cancel();
+        closed = true;
+        final EventSource current = eventSource;
+        if (current != null) {
+            current.cancel();
         }
     }
 
     private final class ConfigurationEventListener extends EventSourceListener {
+        private final int connectionId;
+        // 0 until the stream opens
+        private volatile long openedAt;
+
+        private ConfigurationEventListener(final int connectionId) {
+            this.connectionId = connectionId;
+        }
+
         @Override
         public void onClosed(@NotNull EventSource eventSource) {
+            if (isStale()) {
+                return;
+            }
             logger.debug("ConfigurationUpdaterListener EventSource closed, starting a new one");
-            createNewEventSource();
+            resetBackoffIfStable();
+            scheduleReconnect("closed");
         }
 
         @Override
         public void onEvent(@NotNull EventSource eventSource, @Nullable String id, @Nullable String type, @NotNull String data) {
             logger.debug("ConfigurationUpdaterListener EventSource, handling event of type: " + type);
-            lastEventId = id;
+            // the stream works end to end
+            failedAttempts.set(0);
+            if (id != null) {
+                lastEventId = id;
+            }
             if ("message".equals(type)) {
                 try {
                     final EventSourceMessage eventSourceMessage = eventSourceMessageJsonAdapter.fromJson(data);
                     final ConfigurationUpdateEvent configurationUpdateEvent = configurationUpdateEventJsonAdapter.fromJson(eventSourceMessage.data);
                     updateEventHandler.onConfigurationUpdateEvent(configurationUpdateEvent.published);
-                } catch (IOException e) {
-                    throw new AppFlagsException("Error handling ConfigurationUpdaterListener EventSource message", e);
+                } catch (IOException | RuntimeException e) {
+                    // a bad message must not take down the stream, the periodic reload still catches up
+                    logger.error("Error handling ConfigurationUpdaterListener EventSource message", e);
                 }
             }
         }
 
         @Override
         public void onFailure(@NotNull EventSource eventSource, @Nullable Throwable t, @Nullable Response response) {
-            logger.error("ConfigurationUpdaterListener EventSource failure, starting a new one", t);
-            createNewEventSource();
+            if (closed || isStale()) {
+                return;
+            }
+            logger.warn("ConfigurationUpdaterListener EventSource failure", t);
+            resetBackoffIfStable();
+            if (response != null && !response.isSuccessful()) {
+                // the realtime token may have expired or been revoked, look up a new SSE URL
+                sseUrl = null;
+                scheduleReconnect("failure: HTTP " + response.code());
+            } else {
+                scheduleReconnect("failure: " + t);
+            }
+        }
+
+        private void resetBackoffIfStable() {
+            final long opened = openedAt;
+            if (opened != 0 && System.currentTimeMillis() - opened >= MIN_STABLE_CONNECTION_MS) {
+                failedAttempts.set(0);
+            }
+        }
+
+        // a replaced EventSource may still report its cancellation, which must not schedule another reconnect
+        private boolean isStale() {
+            return connectionId != connection.get();
         }
 
         @Override
         public void onOpen(@NotNull EventSource eventSource, @NotNull Response response) {
             logger.trace("ConfigurationUpdaterListener opened");
+            openedAt = System.currentTimeMillis();
         }
     }
 
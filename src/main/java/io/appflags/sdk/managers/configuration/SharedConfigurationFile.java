@@ -0,0 +1,274 @@
+package io.appflags.sdk.managers.configuration;
+
+import io.appflags.sdk.exceptions.AppFlagsException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Configuration snapshot shared by the processes on a host through a memory-mapped file.
+ *
+ * The process holding the lock on {@code <path>.lock} is the writer, the others map the file read-only and poll the
+ * header for a new sequence. The sequence is a seqlock: it is odd while the writer copies a payload and even once the
+ * payload is complete, readers retry when it is odd or changes while they copy. A CRC32 of the payload is checked as
+ * well, since plain stores to a mapped buffer give no ordering guarantee between processes.
+ *
+ * The header carries an identity derived from the SDK key, so a path shared by mistake between environments is
+ * rejected instead of feeding one environment's configuration to another.
+ *
+ * Header layout: magic (int), format version (int), sequence (long), payload length (int), payload CRC32 (long),
+ * identity (long), padded to {@link #HEADER_SIZE} bytes and followed by the serialized Configuration.
+ */
+class SharedConfigurationFile implements Closeable {
+
+    private static final int MAGIC = 0x41464346; // "AFCF"
+    private static final int FORMAT_VERSION = 2;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int FORMAT_VERSION_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int LENGTH_OFFSET = 16;
+    static final int CRC_OFFSET = 20;
+    static final int IDENTITY_OFFSET = 28;
+    static final int HEADER_SIZE = 64;
+
+    private static final int MAX_READ_ATTEMPTS = 5;
+
+    // one lock channel per lock file per JVM, closing any channel to a locked file releases the JVM's lock on Linux
+    private static final Map<Path, WriterLock> writerLocks = new HashMap<>();
+
+    private final FileChannel channel;
+    private final WriterLock writerLock;
+    private final long identity;
+
+    private boolean writer;
+    private boolean closed;
+    @Nullable
+    private MappedByteBuffer buffer;
+    private long lastReadSequence;
+
+    SharedConfigurationFile(final String path, final long identity) throws IOException {
+        this.identity = identity;
+        this.channel = FileChannel.open(Paths.get(path), CREATE, READ, WRITE);
+        try {
+            this.writerLock = acquireWriterLock(Paths.get(path + ".lock").toAbsolutePath().normalize());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Identity written to and expected in the header, a hash so the SDK key itself never lands on disk.
+     */
+    static long identityOf(final String sdkKey) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(sdkKey.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AppFlagsException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Tries to take the writer role, returns true if this instance is the writer.
+     * The role is held until {@link #close()} or until the process exits.
+     */
+    synchronized boolean tryBecomeWriter() throws IOException {
+        if (!writer && writerLock.tryAcquire(this)) {
+            writer = true;
+            // remap read-write on the next write
+            buffer = null;
+        }
+        return writer;
+    }
+
+    synchronized boolean isWriter() {
+        return writer;
+    }
+
+    synchronized void write(final byte[] payload) throws IOException {
+        if (!writer) {
+            throw new AppFlagsException("Not the writer of the shared configuration file");
+        }
+        final int size = HEADER_SIZE + payload.length;
+        if (buffer == null || buffer.capacity() < size) {
+            // leave headroom so a growing configuration does not remap on every write, mapping past the end extends the file
+            final long capacity = Math.max(2L * size, channel.size());
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        if (buffer.getInt(MAGIC_OFFSET) == MAGIC) {
+            checkIdentity(buffer);
+        }
+
+        final long sequence = buffer.getLong(SEQUENCE_OFFSET);
+        // odd if a previous writer died mid-write, the new write still has to move the sequence forward
+        final long writingSequence = (sequence & 1) == 0 ? sequence + 1 : sequence + 2;
+        buffer.putLong(SEQUENCE_OFFSET, writingSequence);
+
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+        buffer.putInt(LENGTH_OFFSET, payload.length);
+        buffer.putLong(CRC_OFFSET, crc32(payload));
+        buffer.putLong(IDENTITY_OFFSET, identity);
+        final ByteBuffer payloadBuffer = buffer.duplicate();
+        payloadBuffer.position(HEADER_SIZE);
+        payloadBuffer.put(payload);
+
+        buffer.putLong(SEQUENCE_OFFSET, writingSequence + 1);
+        lastReadSequence = writingSequence + 1;
+    }
+
+    /**
+     * Returns the payload if a complete snapshot newer than the last one read is available, null otherwise.
+     * Throws if the file holds a snapshot of a different environment.
+     */
+    @Nullable
+    synchronized byte[] readIfChanged() throws IOException {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            final long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                return null;
+            }
+            if (buffer == null || buffer.capacity() < fileSize) {
+                final FileChannel.MapMode mode = writer ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+                buffer = channel.map(mode, 0, fileSize);
+            }
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION) {
+                return null;
+            }
+            checkIdentity(buffer);
+
+            final long sequence = buffer.getLong(SEQUENCE_OFFSET);
+            if (sequence == lastReadSequence) {
+                return null;
+            }
+            if ((sequence & 1) != 0) {
+                // write in progress
+                Thread.yield();
+                continue;
+            }
+            final int length = buffer.getInt(LENGTH_OFFSET);
+            final long crc = buffer.getLong(CRC_OFFSET);
+            if (length < 0 || HEADER_SIZE + (long) length > buffer.capacity()) {
+                // the file grew after it was mapped, remap on the next attempt
+                continue;
+            }
+            final byte[] payload = new byte[length];
+            final ByteBuffer payloadBuffer = buffer.duplicate();
+            payloadBuffer.position(HEADER_SIZE);
+            payloadBuffer.get(payload);
+
+            if (buffer.getLong(SEQUENCE_OFFSET) != sequence || crc32(payload) != crc) {
+                continue;
+            }
+            lastReadSequence = sequence;
+            return payload;
+        }
+        return null;
+    }
+
+    private void checkIdentity(final ByteBuffer header) {
+        if (header.getLong(IDENTITY_OFFSET) != identity) {
+            throw new AppFlagsException("Shared configuration file belongs to a different AppFlags environment");
+        }
+    }
+
+    private static long crc32(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer = false;
+        try {
+            releaseWriterLock(writerLock, this);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static synchronized WriterLock acquireWriterLock(final Path lockPath) throws IOException {
+        WriterLock writerLock = writerLocks.get(lockPath);
+        if (writerLock == null) {
+            writerLock = new WriterLock(lockPath, FileChannel.open(lockPath, CREATE, READ, WRITE));
+            writerLocks.put(lockPath, writerLock);
+        }
+        writerLock.references++;
+        return writerLock;
+    }
+
+    private static synchronized void releaseWriterLock(final WriterLock writerLock, final SharedConfigurationFile file) throws IOException {
+        writerLock.release(file);
+        if (--writerLock.references == 0) {
+            writerLocks.remove(writerLock.path);
+            writerLock.channel.close();
+        }
+    }
+
+    /**
+     * The file lock of one lock file in this JVM, held on behalf of at most one SharedConfigurationFile.
+     */
+    private static final class WriterLock {
+        private final Path path;
+        private final FileChannel channel;
+        private int references;
+        @Nullable
+        private FileLock lock;
+        @Nullable
+        private SharedConfigurationFile owner;
+
+        private WriterLock(final Path path, final FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        synchronized boolean tryAcquire(final SharedConfigurationFile file) throws IOException {
+            if (lock != null) {
+                return owner == file;
+            }
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // locked through a channel this class doesn't own
+                return false;
+            }
+            if (lock != null) {
+                owner = file;
+            }
+            return lock != null;
+        }
+
+        synchronized void release(final SharedConfigurationFile file) throws IOException {
+            if (lock != null && owner == file) {
+                lock.release();
+                lock = null;
+                owner = null;
+            }
+        }
+    }
+}
@@ -2,6 +2,10 @@ package io.appflags.sdk.options;
 
 import lombok.Builder;
 import lombok.Data;
+import okhttp3.OkHttpClient;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 @Builder
 @Data
@@ -11,4 +15,44 @@ public class AppFlagsClientOptions {
 
     private ConfigurationOptions configurationOptions;
 
+    /**
+     * Executor that runs ConfigurationChangedHandlers. When not set the client creates its own thread pool.
+     * A supplied executor is not shut down by {@code AppFlagsClient.close()}.
+     */
+    private Executor callbackExecutor;
+
+    /**
+     * Executor that reloads the configuration after a realtime update. When not set the client creates its own
+     * thread. A supplied executor is not shut down by {@code AppFlagsClient.close()}.
+     */
+    private Executor reloadExecutor;
+
+    /**
+     * Scheduler for periodic configuration reloads. When not set the client creates its own daemon thread.
+     * A supplied scheduler is not shut down by {@code AppFlagsClient.close()}.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * HTTP client used to reach the AppFlags edge, for example one whose Dispatcher uses virtual threads.
+     * The realtime connection is derived from it with {@code newBuilder()}, so it shares its dispatcher, connection pool
+     * and interceptors, its call and read timeouts are replaced since the realtime stream stays open indefinitely.
+     */
+    private OkHttpClient httpClient;
+
+    /**
+     * Default latency budget for flag evaluation. When the bucketing engine can't be acquired within it, for example
+     * during a configuration update, the last value computed for the user is returned, or the caller's default.
+     * When not set evaluations wait for the engine.
+     */
+    private Long evaluationTimeoutMs;
+
+    /**
+     * Maximum number of users whose last computed flags are kept as fallback for evaluations that time out.
+     * Each entry retains the user's serialized bucketing result, about the size of all flag values for one user,
+     * so with many flags a large cache holds a correspondingly large amount of memory.
+     */
+    @Builder.Default
+    private int lastKnownFlagsCacheSize = 1000;
+
 }
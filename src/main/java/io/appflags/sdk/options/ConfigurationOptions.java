@@ -8,4 +8,25 @@ import lombok.Data;
 public class ConfigurationOptions {
 
     private Integer pollingPeriodMs;
+
+    /**
+     * Path of a file used to share the configuration between the processes on a host. One process loads the
+     * configuration from AppFlags and writes it to the file, the others read it from the file without network I/O.
+     */
+    private String sharedConfigurationPath;
+
+    /**
+     * How often processes reading the shared configuration file check it for a new configuration.
+     */
+    private Integer sharedConfigurationPollingPeriodMs;
+
+    /**
+     * Delay before reopening a failed realtime connection, doubled on each consecutive failure. Defaults to 1 second.
+     */
+    private Long realtimeReconnectDelayMs;
+
+    /**
+     * Upper bound of the realtime reconnect delay. Defaults to 1 minute.
+     */
+    private Long maxRealtimeReconnectDelayMs;
 }
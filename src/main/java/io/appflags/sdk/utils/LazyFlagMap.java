@@ -0,0 +1,159 @@
+package io.appflags.sdk.utils;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import io.appflags.protos.BucketingResult;
+import io.appflags.protos.ComputedFlag;
+import io.appflags.sdk.exceptions.AppFlagsException;
+import io.appflags.sdk.models.AppFlagsFlag;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read-only map view over a serialized BucketingResult. Construction only indexes the offset of each
+ * ComputedFlag by its key, a flag is decoded into an AppFlagsFlag the first time it is accessed.
+ * Instances may be shared between threads, decoded flags are published through an AtomicReferenceArray.
+ */
+public class LazyFlagMap extends AbstractMap<String, AppFlagsFlag> {
+
+    private final byte[] bytes;
+    private final Map<String, Integer> indexByKey = new LinkedHashMap<>();
+
+    // final so the index is safely published along with the map
+    private final int[] offsets;
+    private final int[] lengths;
+    private final AtomicReferenceArray<AppFlagsFlag> decoded;
+
+    public LazyFlagMap(final byte[] bucketingResultBytes) {
+        this.bytes = bucketingResultBytes;
+        final int[][] index;
+        try {
+            index = index(bucketingResultBytes, indexByKey);
+        } catch (IOException e) {
+            throw new AppFlagsException("Error decoding BucketingResult proto", e);
+        }
+        this.offsets = index[0];
+        this.lengths = index[1];
+        this.decoded = new AtomicReferenceArray<>(offsets.length);
+    }
+
+    // fills indexByKey and returns the offsets and lengths of the ComputedFlags in the result
+    private static int[][] index(final byte[] bytes, final Map<String, Integer> indexByKey) throws IOException {
+        final CodedInputStream input = CodedInputStream.newInstance(bytes);
+        int[] offsets = new int[16];
+        int[] lengths = new int[16];
+        int count = 0;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) != BucketingResult.FLAGS_FIELD_NUMBER) {
+                input.skipField(tag);
+                continue;
+            }
+            final int length = input.readRawVarint32();
+            final int offset = input.getTotalBytesRead();
+            final int oldLimit = input.pushLimit(length);
+            final String key = readKey(input);
+            input.popLimit(oldLimit);
+
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            offsets[count] = offset;
+            lengths[count] = length;
+            // a later flag with the same key replaces an earlier one, same as building a HashMap from the list
+            indexByKey.put(key, count);
+            count++;
+        }
+        return new int[][] {Arrays.copyOf(offsets, count), Arrays.copyOf(lengths, count)};
+    }
+
+    // reads the key of a ComputedFlag and skips the remainder of the message
+    private static String readKey(final CodedInputStream input) throws IOException {
+        String key = "";
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == ComputedFlag.KEY_FIELD_NUMBER) {
+                key = input.readStringRequireUtf8();
+                input.skipRawBytes(input.getBytesUntilLimit());
+                break;
+            }
+            input.skipField(tag);
+        }
+        return key;
+    }
+
+    private AppFlagsFlag decode(final int index) {
+        final AppFlagsFlag flag = decoded.get(index);
+        if (flag == null) {
+            final ComputedFlag computedFlag;
+            try {
+                computedFlag = ComputedFlag.parser().parseFrom(bytes, offsets[index], lengths[index]);
+            } catch (InvalidProtocolBufferException e) {
+                throw new AppFlagsException("Error decoding ComputedFlag proto", e);
+            }
+            // the array store safely publishes the flag, a racing thread may decode it too but every caller sees the first one
+            decoded.compareAndSet(index, null, ProtobufConverter.fromComputedFlag(computedFlag));
+            return decoded.get(index);
+        }
+        return flag;
+    }
+
+    @Override
+    public AppFlagsFlag get(final Object key) {
+        final Integer index = indexByKey.get(key);
+        return index == null ? null : decode(index);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return indexByKey.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return indexByKey.size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(indexByKey.keySet());
+    }
+
+    @Override
+    public Set<Entry<String, AppFlagsFlag>> entrySet() {
+        return new AbstractSet<Entry<String, AppFlagsFlag>>() {
+            @Override
+            public Iterator<Entry<String, AppFlagsFlag>> iterator() {
+                final Iterator<Entry<String, Integer>> indexes = indexByKey.entrySet().iterator();
+                return new Iterator<Entry<String, AppFlagsFlag>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return indexes.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, AppFlagsFlag> next() {
+                        final Entry<String, Integer> entry = indexes.next();
+                        return new SimpleImmutableEntry<>(entry.getKey(), decode(entry.getValue()));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return indexByKey.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package io.appflags.sdk;
+
+import io.appflags.protos.BucketingResult;
+import io.appflags.protos.ComputedFlag;
+import io.appflags.protos.Configuration;
+import io.appflags.protos.FlagValueType;
+import io.appflags.protos.User;
+import io.appflags.sdk.managers.bucketing.BucketingManager;
+import io.appflags.sdk.models.AppFlagsUser;
+import io.appflags.sdk.options.AppFlagsClientOptions;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Covers time bounded evaluations while the bucketing engine is held, e.g. by a configuration update.
+ */
+public class AppFlagsClientEvaluationTimeoutTest {
+
+    private static final String FLAG_KEY = "flag";
+    private static final long TIMEOUT_MS = 20;
+
+    private FakeEdge edge;
+    private HeldBucketingManager bucketingManager;
+    private AppFlagsClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        edge = new FakeEdge("test-environment");
+        bucketingManager = new HeldBucketingManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        edge.close();
+    }
+
+    @Test
+    public void timedOutEvaluationReturnsLastKnownValue() throws InterruptedException {
+        client = newClient(AppFlagsClientOptions.builder());
+        final AppFlagsUser user = user("a");
+        final String computed = client.getStringVariation(FLAG_KEY, user, "default", TIMEOUT_MS);
+
+        bucketingManager.hold();
+        try {
+            assertEquals(computed, client.getStringVariation(FLAG_KEY, user, "default", TIMEOUT_MS));
+        } finally {
+            bucketingManager.release();
+        }
+        assertEquals(1, client.getEvaluationTimeoutCount());
+    }
+
+    @Test
+    public void timedOutEvaluationWithoutLastKnownValueReturnsCallerDefault() throws InterruptedException {
+        client = newClient(AppFlagsClientOptions.builder());
+
+        bucketingManager.hold();
+        try {
+            assertEquals("default", client.getStringVariation(FLAG_KEY, user("a"), "default", TIMEOUT_MS));
+            assertTrue(client.getAllFlags(user("a"), TIMEOUT_MS).isEmpty());
+        } finally {
+            bucketingManager.release();
+        }
+        assertEquals(2, client.getEvaluationTimeoutCount());
+    }
+
+    @Test
+    public void evaluationTimeoutOptionBoundsEvaluationsWithoutTimeout() throws InterruptedException {
+        client = newClient(AppFlagsClientOptions.builder().evaluationTimeoutMs(TIMEOUT_MS));
+        final AppFlagsUser user = user("a");
+        final String computed = client.getStringVariation(FLAG_KEY, user, "default");
+
+        bucketingManager.hold();
+        try {
+            assertEquals(computed, client.getStringVariation(FLAG_KEY, user, "default"));
+            assertEquals("default", client.getStringVariation(FLAG_KEY, user("b"), "default"));
+        } finally {
+            bucketingManager.release();
+        }
+        assertEquals(2, client.getEvaluationTimeoutCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedUserIsEvicted() throws InterruptedException {
+        client = newClient(AppFlagsClientOptions.builder().lastKnownFlagsCacheSize(2));
+        final String a = client.getStringVariation(FLAG_KEY, user("a"), "default", TIMEOUT_MS);
+        client.getStringVariation(FLAG_KEY, user("b"), "default", TIMEOUT_MS);
+        // a becomes the most recently used, so c evicts b
+        client.getStringVariation(FLAG_KEY, user("a"), "default", TIMEOUT_MS);
+        final String c = client.getStringVariation(FLAG_KEY, user("c"), "default", TIMEOUT_MS);
+
+        bucketingManager.hold();
+        try {
+            assertEquals(a, client.getStringVariation(FLAG_KEY, user("a"), "default", TIMEOUT_MS));
+            assertEquals("default", client.getStringVariation(FLAG_KEY, user("b"), "default", TIMEOUT_MS));
+            assertEquals(c, client.getStringVariation(FLAG_KEY, user("c"), "default", TIMEOUT_MS));
+        } finally {
+            bucketingManager.release();
+        }
+    }
+
+    private AppFlagsClient newClient(final AppFlagsClientOptions.AppFlagsClientOptionsBuilder options) {
+        return new AppFlagsClient("test-sdk-key", options.edgeUrlOverride(edge.getUrl()).build(), bucketingManager);
+    }
+
+    private static AppFlagsUser user(final String key) {
+        return AppFlagsUser.builder().key(key).build();
+    }
+
+    /**
+     * Guards the engine with a permit the test can hold, and answers with one string flag whose value changes on
+     * every evaluation, so a returned value shows which evaluation computed it.
+     */
+    private static final class HeldBucketingManager extends BucketingManager {
+        private final Semaphore engine = new Semaphore(1);
+        private final AtomicInteger evaluations = new AtomicInteger();
+
+        void hold() throws InterruptedException {
+            engine.acquire();
+        }
+
+        void release() {
+            engine.release();
+        }
+
+        @Override
+        public void setConfiguration(final Configuration config) {
+            engine.acquireUninterruptibly();
+            try {
+                super.setConfiguration(config);
+            } finally {
+                engine.release();
+            }
+        }
+
+        @Override
+        public byte[] bucketToBytes(final User user) {
+            engine.acquireUninterruptibly();
+            try {
+                return result(user);
+            } finally {
+                engine.release();
+            }
+        }
+
+        @Nullable
+        @Override
+        public byte[] bucketToBytes(final User user, final long timeout, final TimeUnit unit) {
+            try {
+                if (!engine.tryAcquire(timeout, unit)) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            try {
+                return result(user);
+            } finally {
+                engine.release();
+            }
+        }
+
+        private byte[] result(final User user) {
+            final ComputedFlag.Builder flag = ComputedFlag.newBuilder()
+                .setKey(FLAG_KEY)
+                .setValueType(FlagValueType.STRING);
+            flag.getValueBuilder().setStringValue(user.getKey() + "-" + evaluations.incrementAndGet());
+            return BucketingResult.newBuilder()
+                .addFlags(flag)
+                .build()
+                .toByteArray();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.appflags.sdk;
+
+import io.appflags.sdk.models.AppFlagsUser;
+import io.appflags.sdk.options.AppFlagsClientOptions;
+import io.appflags.sdk.options.ConfigurationOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the path from an edge publish through the SSE event, the configuration reload, the bucketing engine swap
+ * and handler dispatch, against a {@link FakeEdge}. Latencies are taken from the local clock on both ends.
+ *
+ * The realtime reconnect backoff is shortened so reconnects between events don't dominate the run, and the served
+ * configuration has {@link #FLAGS} flags so evaluations and swaps do real work.
+ */
+public class AppFlagsClientPropagationTest {
+
+    private static final int SAMPLES = 100;
+    private static final int FLAGS = 500;
+    private static final int FLAG_VALUE_BYTES = 64;
+    private static final long STREAM_TIMEOUT_SECONDS = 10;
+    private static final long VISIBLE_TIMEOUT_SECONDS = 10;
+    private static final long RECONNECT_DELAY_MS = 50;
+    private static final long MAX_RECONNECT_DELAY_MS = 200;
+
+    private FakeEdge edge;
+    private AppFlagsClient client;
+    private final BlockingQueue<Long> visibleAt = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        edge = new FakeEdge("test-environment", FLAGS, FLAG_VALUE_BYTES);
+        client = new AppFlagsClient("test-sdk-key", AppFlagsClientOptions.builder()
+            .edgeUrlOverride(edge.getUrl())
+            .configurationOptions(ConfigurationOptions.builder()
+                .realtimeReconnectDelayMs(RECONNECT_DELAY_MS)
+                .maxRealtimeReconnectDelayMs(MAX_RECONNECT_DELAY_MS)
+                .build())
+            .build());
+        client.addConfigurationChangedHandler(() -> visibleAt.add(System.nanoTime()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        edge.close();
+    }
+
+    @Test
+    public void publishToVisibleLatency() throws Exception {
+        final List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            latencies.add(publishAndAwaitVisible());
+        }
+        Collections.sort(latencies);
+        System.out.println("publish-to-visible over " + SAMPLES + " publishes of " + edge.getConfigurationSize() + " bytes:"
+            + " p50=" + millis(percentile(latencies, 50))
+            + " p90=" + millis(percentile(latencies, 90))
+            + " p99=" + millis(percentile(latencies, 99)));
+        assertEquals(SAMPLES + 1, edge.getConfigurationRequests());
+        // an event, one reload and one swap against a local edge, far below the publish timeout
+        assertTrue("p50 publish-to-visible " + millis(percentile(latencies, 50)),
+            percentile(latencies, 50) < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void evaluationThroughputDuringConfigurationChurn() throws Exception {
+        final int evaluators = 4;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong evaluations = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < evaluators; i++) {
+            final AppFlagsUser user = AppFlagsUser.builder().key("user-" + i).build();
+            final Thread thread = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        client.getAllFlags(user);
+                        evaluations.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        final long started = System.nanoTime();
+        int swaps = 0;
+        for (int i = 0; i < 5; i++) {
+            publishAndAwaitVisible();
+            swaps++;
+        }
+        final long elapsed = System.nanoTime() - started;
+        running.set(false);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        // evaluations keep running between swaps instead of queueing behind them
+        assertTrue("only " + evaluations.get() + " evaluations across " + swaps + " swaps", evaluations.get() > swaps * evaluators);
+        assertFalse(client.getAllFlags(AppFlagsUser.builder().key("user-0").build()).isEmpty());
+        System.out.println("evaluated " + evaluations.get() + " times across " + swaps + " configuration swaps, "
+            + (evaluations.get() * TimeUnit.SECONDS.toNanos(1) / elapsed) + " evaluations/s");
+    }
+
+    @Test
+    public void updatesResumeAfterStreamDrops() throws Exception {
+        publishAndAwaitVisible();
+        assertTrue("client not listening on SSE", edge.awaitStreamWaiting(STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // the stream currently waiting is the first of the dropped ones
+        final int firstDropped = edge.getStreamRequests() - 1;
+
+        edge.dropStreams(3);
+        assertNotNull("no update after SSE drops", publishAndAwaitVisibleOrNull());
+
+        // every drop reaches the listener and costs exactly one reconnect, none is retried silently by OkHttp
+        assertEquals(3, edge.getDroppedStreams());
+        final List<Long> requests = edge.getStreamRequestNanos();
+        assertTrue(requests.size() >= firstDropped + 4);
+        // equal jitter waits at least half of the backoff, which doubles per consecutive failure up to the maximum
+        long backoff = RECONNECT_DELAY_MS;
+        for (int i = firstDropped; i < firstDropped + 3; i++) {
+            backoff = Math.min(MAX_RECONNECT_DELAY_MS, backoff * 2);
+            final long gapMs = TimeUnit.NANOSECONDS.toMillis(requests.get(i + 1) - requests.get(i));
+            assertTrue("reconnect " + (i - firstDropped + 1) + " after " + gapMs + " ms", gapMs >= backoff / 2);
+            assertTrue("reconnect " + (i - firstDropped + 1) + " after " + gapMs + " ms", gapMs < backoff + TimeUnit.SECONDS.toMillis(1));
+        }
+        // connection failures without a response keep the cached SSE URL
+        assertEquals(1, edge.getRealtimeTokenRequests());
+        // reconnects resume from the last event received
+        assertTrue(edge.getStreamPaths().get(firstDropped + 3).contains("lastEvent="));
+    }
+
+    private long publishAndAwaitVisible() throws InterruptedException {
+        final Long latency = publishAndAwaitVisibleOrNull();
+        assertNotNull("configuration publish not visible within " + VISIBLE_TIMEOUT_SECONDS + "s", latency);
+        return latency;
+    }
+
+    private Long publishAndAwaitVisibleOrNull() throws InterruptedException {
+        assertTrue("client not listening on SSE", edge.awaitStreamWaiting(STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        visibleAt.clear();
+        final long published = System.nanoTime();
+        edge.publish();
+        final Long visible = visibleAt.poll(VISIBLE_TIMEOUT_SECONDS + STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return visible != null ? visible - published : null;
+    }
+
+    private static long percentile(final List<Long> sorted, final int percentile) {
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static String millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+}
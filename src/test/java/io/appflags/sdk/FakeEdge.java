@@ -0,0 +1,261 @@
+package io.appflags.sdk;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.Timestamps;
+import io.appflags.protos.Configuration;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Embedded AppFlags edge for offline tests, serves the configuration endpoint, the realtime token endpoint and the
+ * SSE stream it points to.
+ *
+ * Each SSE request is held open until a configuration is published, then answered with one update event and closed,
+ * so the client reconnects between events like it does when the real edge recycles a stream.
+ *
+ * Served configurations carry a configurable number of flags. Flag messages are filled field by field from the
+ * protobuf descriptor, one element per repeated field, so the fake follows the configuration schema without
+ * hard-coding it, and a padded string in every non-key string field sets the size of each flag.
+ */
+public class FakeEdge implements AutoCloseable {
+
+    private static final String SSE_PATH = "/sse";
+    private static final long STREAM_POLL_MS = 50;
+    // bounds the fill of recursive flag message types
+    private static final int MAX_FILL_DEPTH = 6;
+
+    private final MockWebServer server = new MockWebServer();
+    private final AtomicReference<Configuration> configuration = new AtomicReference<>();
+    private final BlockingQueue<Configuration> events = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger configurationRequests = new AtomicInteger();
+    private final AtomicInteger realtimeTokenRequests = new AtomicInteger();
+    private final AtomicInteger streamRequests = new AtomicInteger();
+    private final AtomicInteger streamsToDrop = new AtomicInteger();
+    private final AtomicInteger droppedStreams = new AtomicInteger();
+    private final AtomicInteger eventIds = new AtomicInteger();
+    private final List<String> streamPaths = new CopyOnWriteArrayList<>();
+    private final List<Long> streamRequestNanos = new CopyOnWriteArrayList<>();
+
+    private volatile boolean streamWaiting;
+    private volatile boolean closed;
+
+    public FakeEdge(final String environmentId) throws IOException {
+        this(environmentId, 0, 0);
+    }
+
+    /**
+     * @param flagCount number of flags in the served configuration
+     * @param flagValueBytes length of the padded string written to each non-key string field of a flag
+     */
+    public FakeEdge(final String environmentId, final int flagCount, final int flagValueBytes) throws IOException {
+        final Configuration.Builder builder = Configuration.newBuilder()
+            .setEnvironmentId(environmentId)
+            .setPublished(Timestamps.fromMillis(System.currentTimeMillis()));
+        final Descriptors.FieldDescriptor flagsField = Configuration.getDescriptor().findFieldByName("flags");
+        final char[] padding = new char[flagValueBytes];
+        Arrays.fill(padding, 'x');
+        for (int i = 0; i < flagCount; i++) {
+            final Message.Builder flag = builder.newBuilderForField(flagsField);
+            fill(flag, "flag-" + i, new String(padding), 0);
+            builder.addRepeatedField(flagsField, flag.build());
+        }
+        configuration.set(builder.build());
+        server.setDispatcher(new EdgeDispatcher());
+        server.start();
+    }
+
+    public String getUrl() {
+        final String url = server.url("/").toString();
+        return url.substring(0, url.length() - 1);
+    }
+
+    /**
+     * Publishes a new configuration and queues an update event for the SSE stream.
+     */
+    public Configuration publish() {
+        final Configuration current = configuration.get();
+        final long published = Math.max(System.currentTimeMillis(), Timestamps.toMillis(current.getPublished()) + 1);
+        final Configuration next = current.toBuilder()
+            .setPublished(Timestamps.fromMillis(published))
+            .build();
+        configuration.set(next);
+        events.add(next);
+        return next;
+    }
+
+    /**
+     * Disconnects the next SSE streams, including one that is currently waiting for an event.
+     */
+    public void dropStreams(final int count) {
+        streamsToDrop.addAndGet(count);
+    }
+
+    public boolean awaitStreamWaiting(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!streamWaiting) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public int getConfigurationRequests() {
+        return configurationRequests.get();
+    }
+
+    public int getRealtimeTokenRequests() {
+        return realtimeTokenRequests.get();
+    }
+
+    public int getStreamRequests() {
+        return streamRequests.get();
+    }
+
+    public List<String> getStreamPaths() {
+        return streamPaths;
+    }
+
+    /**
+     * System.nanoTime() at which each SSE request arrived.
+     */
+    public List<Long> getStreamRequestNanos() {
+        return streamRequestNanos;
+    }
+
+    public int getDroppedStreams() {
+        return droppedStreams.get();
+    }
+
+    public int getConfigurationSize() {
+        return configuration.get().getSerializedSize();
+    }
+
+    private static void fill(final Message.Builder message, final String key, final String value, final int depth) {
+        for (final Descriptors.FieldDescriptor field : message.getDescriptorForType().getFields()) {
+            final Object fieldValue;
+            switch (field.getJavaType()) {
+                case MESSAGE:
+                    if (depth >= MAX_FILL_DEPTH) {
+                        continue;
+                    }
+                    final Message.Builder child = message.newBuilderForField(field);
+                    fill(child, key, value, depth + 1);
+                    fieldValue = child.build();
+                    break;
+                case STRING:
+                    fieldValue = "key".equals(field.getName()) ? key : value;
+                    break;
+                case BYTE_STRING:
+                    fieldValue = ByteString.copyFromUtf8(value);
+                    break;
+                case ENUM:
+                    // string typed flags match the padded string values
+                    final Descriptors.EnumValueDescriptor string = field.getEnumType().findValueByName("STRING");
+                    fieldValue = string != null ? string : field.getEnumType().getValues().get(0);
+                    break;
+                case BOOLEAN:
+                    fieldValue = true;
+                    break;
+                case INT:
+                    fieldValue = 1;
+                    break;
+                case LONG:
+                    fieldValue = 1L;
+                    break;
+                case FLOAT:
+                    fieldValue = 1f;
+                    break;
+                case DOUBLE:
+                    fieldValue = 1.0;
+                    break;
+                default:
+                    continue;
+            }
+            if (field.isRepeated()) {
+                message.addRepeatedField(field, fieldValue);
+            } else {
+                message.setField(field, fieldValue);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.shutdown();
+    }
+
+    private final class EdgeDispatcher extends Dispatcher {
+        @NotNull
+        @Override
+        public MockResponse dispatch(@NotNull final RecordedRequest request) throws InterruptedException {
+            final String path = request.getPath() != null ? request.getPath() : "";
+            if (path.startsWith("/configuration/v1/config")) {
+                configurationRequests.incrementAndGet();
+                final String encoded = Base64.getEncoder().encodeToString(configuration.get().toByteArray());
+                return new MockResponse().setBody("{\"configuration\":\"" + encoded + "\"}");
+            }
+            if (path.startsWith("/realtimeToken/")) {
+                realtimeTokenRequests.incrementAndGet();
+                return new MockResponse().setBody("{\"url\":\"" + server.url(SSE_PATH + "?token=test") + "\"}");
+            }
+            if (path.startsWith(SSE_PATH)) {
+                streamRequests.incrementAndGet();
+                streamPaths.add(path);
+                streamRequestNanos.add(System.nanoTime());
+                return stream();
+            }
+            return new MockResponse().setResponseCode(404);
+        }
+
+        private MockResponse stream() throws InterruptedException {
+            streamWaiting = true;
+            try {
+                while (!closed) {
+                    if (streamsToDrop.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                        droppedStreams.incrementAndGet();
+                        return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+                    }
+                    final Configuration published = events.poll(STREAM_POLL_MS, TimeUnit.MILLISECONDS);
+                    if (published != null) {
+                        return updateEvent(published);
+                    }
+                }
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            } finally {
+                streamWaiting = false;
+            }
+        }
+
+        private MockResponse updateEvent(final Configuration published) {
+            final double publishedSeconds = Timestamps.toMillis(published.getPublished()) / 1000.0;
+            final String message = "{\\\"published\\\":" + publishedSeconds + "}";
+            final String body = "id: " + eventIds.incrementAndGet() + "\n"
+                + "event: message\n"
+                + "data: {\"data\":\"" + message + "\"}\n\n";
+            return new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(body);
+        }
+    }
+}
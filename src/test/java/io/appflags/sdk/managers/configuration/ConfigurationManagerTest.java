@@ -0,0 +1,43 @@
+package io.appflags.sdk.managers.configuration;
+
+import io.appflags.sdk.exceptions.AppFlagsException;
+import io.appflags.sdk.options.ConfigurationOptions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationManagerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void failedStartupReleasesSharedFileWriterLock() throws IOException {
+        final String path = folder.newFolder().toPath().resolve("configuration").toString();
+        final ConfigurationOptions options = ConfigurationOptions.builder()
+            .sharedConfigurationPath(path)
+            .build();
+        try {
+            new ConfigurationManager("test-sdk-key", unreachableEdgeUrl(), () -> { }, options);
+            fail("expected the initial load to fail");
+        } catch (AppFlagsException e) {
+            // expected, nothing listens on the edge URL
+        }
+
+        try (SharedConfigurationFile file = new SharedConfigurationFile(path, SharedConfigurationFile.identityOf("test-sdk-key"))) {
+            assertTrue(file.tryBecomeWriter());
+        }
+    }
+
+    private static String unreachableEdgeUrl() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://localhost:" + socket.getLocalPort();
+        }
+    }
+}
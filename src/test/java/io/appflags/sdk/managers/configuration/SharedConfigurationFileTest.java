@@ -0,0 +1,175 @@
+package io.appflags.sdk.managers.configuration;
+
+import io.appflags.sdk.exceptions.AppFlagsException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SharedConfigurationFileTest {
+
+    private static final long IDENTITY = SharedConfigurationFile.identityOf("test-sdk-key");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = folder.newFolder().toPath().resolve("configuration").toString();
+    }
+
+    @Test
+    public void writeThenRead() throws IOException {
+        try (SharedConfigurationFile writer = open(); SharedConfigurationFile reader = open()) {
+            assertTrue(writer.tryBecomeWriter());
+            assertNull(reader.readIfChanged());
+
+            writer.write(payload(100, (byte) 1));
+            assertArrayEquals(payload(100, (byte) 1), reader.readIfChanged());
+            // unchanged sequence
+            assertNull(reader.readIfChanged());
+
+            writer.write(payload(50, (byte) 2));
+            assertArrayEquals(payload(50, (byte) 2), reader.readIfChanged());
+        }
+    }
+
+    @Test
+    public void readerRemapsWhenFileGrows() throws IOException {
+        try (SharedConfigurationFile writer = open(); SharedConfigurationFile reader = open()) {
+            assertTrue(writer.tryBecomeWriter());
+            writer.write(payload(16, (byte) 1));
+            assertArrayEquals(payload(16, (byte) 1), reader.readIfChanged());
+
+            final byte[] large = payload(1 << 20, (byte) 3);
+            writer.write(large);
+            assertArrayEquals(large, reader.readIfChanged());
+        }
+    }
+
+    @Test
+    public void tornHeaderIsRejected() throws IOException {
+        try (SharedConfigurationFile writer = open(); SharedConfigurationFile reader = open()) {
+            assertTrue(writer.tryBecomeWriter());
+            writer.write(payload(32, (byte) 1));
+            assertArrayEquals(payload(32, (byte) 1), reader.readIfChanged());
+
+            writer.write(payload(32, (byte) 2));
+            // a writer stopped between bumping the sequence and completing the payload
+            final long sequence = readHeaderLong(SharedConfigurationFile.SEQUENCE_OFFSET);
+            writeHeaderLong(SharedConfigurationFile.SEQUENCE_OFFSET, sequence + 1);
+            assertNull(reader.readIfChanged());
+        }
+    }
+
+    @Test
+    public void corruptPayloadIsRejected() throws IOException {
+        try (SharedConfigurationFile writer = open(); SharedConfigurationFile reader = open()) {
+            assertTrue(writer.tryBecomeWriter());
+            writer.write(payload(32, (byte) 1));
+            writeHeaderLong(SharedConfigurationFile.CRC_OFFSET, 0);
+            assertNull(reader.readIfChanged());
+        }
+    }
+
+    @Test(expected = AppFlagsException.class)
+    public void otherEnvironmentIsRejected() throws IOException {
+        try (SharedConfigurationFile writer = open();
+             SharedConfigurationFile reader = new SharedConfigurationFile(path, SharedConfigurationFile.identityOf("other-sdk-key"))) {
+            assertTrue(writer.tryBecomeWriter());
+            writer.write(payload(32, (byte) 1));
+            reader.readIfChanged();
+        }
+    }
+
+    @Test
+    public void writerRoleMovesAfterClose() throws IOException {
+        final SharedConfigurationFile first = open();
+        try (SharedConfigurationFile second = open()) {
+            assertTrue(first.tryBecomeWriter());
+            assertFalse(second.tryBecomeWriter());
+            first.write(payload(32, (byte) 1));
+
+            first.close();
+            assertTrue(second.tryBecomeWriter());
+            second.write(payload(32, (byte) 2));
+            try (SharedConfigurationFile reader = open()) {
+                assertArrayEquals(payload(32, (byte) 2), reader.readIfChanged());
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test
+    public void closingAFollowerKeepsTheWriterLock() throws IOException {
+        try (SharedConfigurationFile writer = open()) {
+            assertTrue(writer.tryBecomeWriter());
+            open().close();
+            try (SharedConfigurationFile follower = open()) {
+                assertFalse(follower.tryBecomeWriter());
+            }
+            assertTrue(writer.isWriter());
+        }
+    }
+
+    @Test
+    public void newWriterRecoversFromDeadWriter() throws IOException {
+        try (SharedConfigurationFile writer = open()) {
+            assertTrue(writer.tryBecomeWriter());
+            writer.write(payload(32, (byte) 1));
+        }
+        // left odd by a writer that died mid-write
+        writeHeaderLong(SharedConfigurationFile.SEQUENCE_OFFSET, readHeaderLong(SharedConfigurationFile.SEQUENCE_OFFSET) + 1);
+
+        try (SharedConfigurationFile writer = open(); SharedConfigurationFile reader = open()) {
+            assertNull(reader.readIfChanged());
+            assertTrue(writer.tryBecomeWriter());
+            writer.write(payload(32, (byte) 2));
+            assertArrayEquals(payload(32, (byte) 2), reader.readIfChanged());
+        }
+    }
+
+    private SharedConfigurationFile open() throws IOException {
+        return new SharedConfigurationFile(path, IDENTITY);
+    }
+
+    private static byte[] payload(final int length, final byte value) {
+        final byte[] payload = new byte[length];
+        Arrays.fill(payload, value);
+        return payload;
+    }
+
+    private long readHeaderLong(final int offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            channel.read(buffer, offset);
+            buffer.flip();
+            return buffer.getLong();
+        }
+    }
+
+    private void writeHeaderLong(final int offset, final long value) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            buffer.putLong(value);
+            buffer.flip();
+            channel.write(buffer, offset);
+        }
+    }
+}
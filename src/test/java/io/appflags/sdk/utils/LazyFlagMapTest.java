@@ -0,0 +1,165 @@
+package io.appflags.sdk.utils;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnknownFieldSet;
+import io.appflags.protos.BucketingResult;
+import io.appflags.protos.ComputedFlag;
+import io.appflags.protos.FlagValueType;
+import io.appflags.sdk.models.AppFlagsFlag;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks LazyFlagMap against the eager decoding it replaces, a HashMap built from {@code BucketingResult.parseFrom}.
+ */
+public class LazyFlagMapTest {
+
+    @Test
+    public void matchesEagerDecoding() throws IOException {
+        final BucketingResult result = BucketingResult.newBuilder()
+            .addFlags(booleanFlag("a", true))
+            .addFlags(doubleFlag("b", 1.5))
+            .addFlags(stringFlag("c", "value"))
+            .build();
+        assertMatchesEager(result.toByteArray());
+    }
+
+    @Test
+    public void emptyResult() {
+        final LazyFlagMap flags = new LazyFlagMap(new byte[0]);
+        assertTrue(flags.isEmpty());
+        assertNull(flags.get("a"));
+    }
+
+    @Test
+    public void duplicateKeysKeepLastFlag() throws IOException {
+        final BucketingResult result = BucketingResult.newBuilder()
+            .addFlags(booleanFlag("a", true))
+            .addFlags(stringFlag("b", "first"))
+            .addFlags(stringFlag("b", "second"))
+            .build();
+        assertMatchesEager(result.toByteArray());
+        assertEquals("second", new LazyFlagMap(result.toByteArray()).get("b").getValue());
+        assertEquals(2, new LazyFlagMap(result.toByteArray()).size());
+    }
+
+    @Test
+    public void missingKeyIsEmptyString() throws IOException {
+        final ComputedFlag withoutKey = booleanFlag("", true).toBuilder()
+            .clearKey()
+            .build();
+        final BucketingResult result = BucketingResult.newBuilder()
+            .addFlags(withoutKey)
+            .build();
+        assertMatchesEager(result.toByteArray());
+        assertTrue(new LazyFlagMap(result.toByteArray()).containsKey(""));
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws IOException {
+        final UnknownFieldSet unknownFields = UnknownFieldSet.newBuilder()
+            .addField(99, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+            .addField(100, UnknownFieldSet.Field.newBuilder().addLengthDelimited(ByteString.copyFromUtf8("x")).build())
+            .build();
+        final BucketingResult result = BucketingResult.newBuilder()
+            .addFlags(booleanFlag("a", false).toBuilder().setUnknownFields(unknownFields))
+            .addFlags(doubleFlag("b", 2.0))
+            .setUnknownFields(unknownFields)
+            .build();
+        assertMatchesEager(result.toByteArray());
+    }
+
+    @Test
+    public void keyAfterOtherFields() throws IOException {
+        // serializers write fields in number order, this writes the key last to cover any order
+        final ComputedFlag flag = stringFlag("late", "value");
+        final ByteArrayOutputStream flagBytes = new ByteArrayOutputStream();
+        final CodedOutputStream flagOutput = CodedOutputStream.newInstance(flagBytes);
+        flagOutput.writeEnum(ComputedFlag.VALUE_TYPE_FIELD_NUMBER, flag.getValueTypeValue());
+        flagOutput.writeMessage(ComputedFlag.VALUE_FIELD_NUMBER, flag.getValue());
+        flagOutput.writeString(ComputedFlag.KEY_FIELD_NUMBER, flag.getKey());
+        flagOutput.flush();
+
+        final ByteArrayOutputStream resultBytes = new ByteArrayOutputStream();
+        final CodedOutputStream resultOutput = CodedOutputStream.newInstance(resultBytes);
+        resultOutput.writeByteArray(BucketingResult.FLAGS_FIELD_NUMBER, flagBytes.toByteArray());
+        resultOutput.flush();
+
+        assertMatchesEager(resultBytes.toByteArray());
+    }
+
+    @Test
+    public void decodedFlagIsReused() {
+        final LazyFlagMap flags = new LazyFlagMap(BucketingResult.newBuilder()
+            .addFlags(booleanFlag("a", true))
+            .build()
+            .toByteArray());
+        assertSame(flags.get("a"), flags.get("a"));
+        assertSame(flags.get("a"), flags.entrySet().iterator().next().getValue());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isReadOnly() {
+        new LazyFlagMap(BucketingResult.newBuilder().build().toByteArray()).put("a", null);
+    }
+
+    private static void assertMatchesEager(final byte[] bytes) throws IOException {
+        final Map<String, AppFlagsFlag> expected = new HashMap<>();
+        for (final ComputedFlag computedFlag : BucketingResult.parseFrom(bytes).getFlagsList()) {
+            expected.put(computedFlag.getKey(), ProtobufConverter.fromComputedFlag(computedFlag));
+        }
+        final LazyFlagMap actual = new LazyFlagMap(bytes);
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (final Map.Entry<String, AppFlagsFlag> entry : expected.entrySet()) {
+            assertFlagEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+        for (final Map.Entry<String, AppFlagsFlag> entry : actual.entrySet()) {
+            assertFlagEquals(expected.get(entry.getKey()), entry.getValue());
+        }
+        assertFalse(actual.containsKey("not-a-flag"));
+        assertNull(actual.get("not-a-flag"));
+    }
+
+    private static void assertFlagEquals(final AppFlagsFlag expected, final AppFlagsFlag actual) {
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getFlagType(), actual.getFlagType());
+        assertEquals(expected.getValue(), actual.getValue());
+    }
+
+    private static ComputedFlag booleanFlag(final String key, final boolean value) {
+        final ComputedFlag.Builder builder = ComputedFlag.newBuilder()
+            .setKey(key)
+            .setValueType(FlagValueType.BOOLEAN);
+        builder.getValueBuilder().setBooleanValue(value);
+        return builder.build();
+    }
+
+    private static ComputedFlag doubleFlag(final String key, final double value) {
+        final ComputedFlag.Builder builder = ComputedFlag.newBuilder()
+            .setKey(key)
+            .setValueType(FlagValueType.DOUBLE);
+        builder.getValueBuilder().setDoubleValue(value);
+        return builder.build();
+    }
+
+    private static ComputedFlag stringFlag(final String key, final String value) {
+        final ComputedFlag.Builder builder = ComputedFlag.newBuilder()
+            .setKey(key)
+            .setValueType(FlagValueType.STRING);
+        builder.getValueBuilder().setStringValue(value);
+        return builder.build();
+    }
+}